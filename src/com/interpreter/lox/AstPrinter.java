@@ -1,46 +1,110 @@
 package com.interpreter.lox;
 
-public class AstPrinter implements Expr.Visitor<String>{
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Prints a tree as nested parentheses, e.g. (* (- 123) (group 45.67)).
+ *
+ * The text goes straight into an Appendable in one pass. Nothing is built per
+ * node, and there is no recursion, because very deep trees would overflow the
+ * stack. Each visit writes its node's opening text and pushes what still has to
+ * come onto an explicit stack: the children and the closing parenthesis. The
+ * stack only holds references to existing nodes and constant strings.
+ * */
+public class AstPrinter implements Expr.Visitor<Void>{
+    // things still to print, top first: an Expr is visited, anything else is appended as text
+    private final Deque<Object> pending = new ArrayDeque<>();
+    private Appendable out;
 
     String print(Expr expr){
-        return expr.accept(this);
+        StringBuilder builder = new StringBuilder();
+        try {
+            print(expr, builder);
+        } catch (IOException e){
+            throw new UncheckedIOException(e); // a StringBuilder never throws
+        }
+        return builder.toString();
+    }
+
+    // writes the same text print(expr) returns, e.g. into a Writer for trees too big to hold as a String
+    void print(Expr expr, Appendable out) throws IOException {
+        this.out = out;
+        pending.clear();
+        pending.push(expr);
+        try {
+            while(!pending.isEmpty()){
+                Object next = pending.pop();
+                if(next instanceof Expr) ((Expr) next).accept(this);
+                else out.append((String) next);
+            }
+        } catch (UncheckedIOException e){
+            throw e.getCause();
+        } finally {
+            this.out = null;
+            pending.clear();
+        }
     }
 
     @Override
-    public String visitBinary(Expr.Binary expr) {
-        return parenthesize(expr.operator.lexeme, expr.left, expr.right);
+    public Void visitBinary(Expr.Binary expr) {
+        parenthesize(expr.operator.lexeme);
+        pending.push(expr.right);
+        pending.push(" ");
+        pending.push(expr.left);
+        return null;
     }
 
     @Override
-    public String visitGrouping(Expr.Grouping expr) {
-        return parenthesize("group", expr.expression);
+    public Void visitGrouping(Expr.Grouping expr) {
+        parenthesize("group");
+        pending.push(expr.expression);
+        return null;
     }
 
     @Override
-    public String visitTernary(Expr.Ternary expr){
-        return parenthesize("ternary", expr.expr1, expr.expr2, expr.expr3);
+    public Void visitTernary(Expr.Ternary expr){
+        parenthesize("ternary");
+        pending.push(expr.expr3);
+        pending.push(" ");
+        pending.push(expr.expr2);
+        pending.push(" ");
+        pending.push(expr.expr1);
+        return null;
     }
 
     @Override
-    public String visitUnary(Expr.Unary expr) {
-        return parenthesize(expr.operator.lexeme, expr.right);
+    public Void visitUnary(Expr.Unary expr) {
+        parenthesize(expr.operator.lexeme);
+        pending.push(expr.right);
+        return null;
     }
 
     @Override
-    public String visitLiteral(Expr.Literal expr) {
-        return expr.value == null ? "nil" : expr.value.toString();
+    public Void visitLiteral(Expr.Literal expr) {
+        append(expr.value == null ? "nil" : expr.value.toString());
+        return null;
     }
 
-    private String parenthesize(String name, Expr... exprs) {
-        StringBuilder builder = new StringBuilder();
-        builder.append("(").append(name);
-        for(Expr expr : exprs){
-            builder.append(" ");
-            builder.append(expr.accept(this));
+    // writes "(name " now and queues the ")"; the caller then pushes the children, last one first
+    private void parenthesize(String name) {
+        append("(");
+        append(name);
+        append(" ");
+        pending.push(")");
+    }
+
+    // visit methods can't throw IOException, so it's tunnelled out to print()
+    private void append(String text){
+        try {
+            out.append(text);
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
         }
-        builder.append(")");
-        return builder.toString();
     }
+
     public static void main(String[] args){
         // test expression
         Expr expression = new Expr.Binary(new Expr.Unary(
@@ -50,10 +114,10 @@ public class AstPrinter implements Expr.Visitor<String>{
                 new Expr.Grouping(
                         new Expr.Literal(45.67)));
         // two ways to invoke:
-        // first is to define a function in AstPrinter to do it
+        // first is to get the whole thing back as a String
         System.out.println(new AstPrinter().print(expression));
-        // second is to call accept() from expression
-        //  System.out.println(expression.accept(new AstPrinter()));
+        // second is to stream it into any Appendable, e.g. a Writer on a file
+        //  new AstPrinter().print(expression, writer);
 
     }
 
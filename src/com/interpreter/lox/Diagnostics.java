@@ -0,0 +1,100 @@
+package com.interpreter.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the errors reported while scanning, parsing and evaluating.
+ * We only keep the raw pieces (line, token, message). The "[line N] Error ..."
+ * text is built when someone calls report(), so inputs full of errors don't pay
+ * for string concatenation and a synchronized System.err write per error.
+ * */
+class Diagnostics {
+    static class Diagnostic {
+        final int line;
+        // the offending token, null for errors found by the scanner
+        final Token token;
+        final String message;
+        final boolean runtime;
+
+        Diagnostic(int line, Token token, String message, boolean runtime){
+            this.line = line;
+            this.token = token;
+            this.message = message;
+            this.runtime = runtime;
+        }
+
+        void appendTo(StringBuilder builder){
+            if(runtime){
+                builder.append(message);
+                // step and time limits aren't tied to a line
+                if(line > 0) builder.append("\n[line ").append(line).append("]");
+                return;
+            }
+            builder.append("[line ").append(line).append("] Error");
+            if(token != null){
+                if(token.type == TokenType.EOF) builder.append(" at end");
+                else builder.append(" at '").append(token.lexeme).append("'");
+            }
+            builder.append(": ").append(message);
+        }
+
+        @Override
+        public String toString(){
+            StringBuilder builder = new StringBuilder();
+            appendTo(builder);
+            return builder.toString();
+        }
+    }
+
+    private final List<Diagnostic> pending = new ArrayList<>();
+    private boolean hadError = false;
+    private boolean hadRuntimeError = false;
+
+    void error(int line, String message){
+        pending.add(new Diagnostic(line, null, message, false));
+        hadError = true;
+    }
+
+    void error(Token token, String message){
+        pending.add(new Diagnostic(token.line, token, message, false));
+        hadError = true;
+    }
+
+    void runtimeError(RuntimeError error){
+        pending.add(new Diagnostic(error.token.line, error.token, error.getMessage(), true));
+        hadRuntimeError = true;
+    }
+
+    // counted as a runtime error, but the message says which limit was hit
+    void limitExceeded(LimitExceededError error){
+        int line = error.token == null ? 0 : error.token.line;
+        pending.add(new Diagnostic(line, error.token, error.getMessage(), true));
+        hadRuntimeError = true;
+    }
+
+    boolean hadError(){
+        return hadError;
+    }
+
+    boolean hadRuntimeError(){
+        return hadRuntimeError;
+    }
+
+    // the diagnostics collected since the last report(), oldest first
+    List<Diagnostic> pending(){
+        return pending;
+    }
+
+    /**
+     * Formats every pending diagnostic, one per line, into out and forgets them.
+     * The hadError/hadRuntimeError flags are left alone.
+     * */
+    void report(StringBuilder out){
+        for(Diagnostic diagnostic : pending){
+            diagnostic.appendTo(out);
+            out.append(System.lineSeparator());
+        }
+        pending.clear();
+    }
+}
@@ -0,0 +1,61 @@
+package com.interpreter.lox;
+
+/**
+ * Caps on a single evaluation (one top-level expression), so one pathological
+ * input can't pin a thread forever. 0 means "no limit" for each of them.
+ * Going over a limit throws LimitExceededError.
+ * */
+class EvaluationLimits {
+    static final EvaluationLimits NONE = new EvaluationLimits(0, 0, 0);
+
+    // how many nodes may be visited; approximate under --parallel, where each
+    // task draws its steps 1024 at a time and may finish with some unused
+    final long maxSteps;
+    // wall-clock time allowed, in nanoseconds
+    final long timeoutNanos;
+    // longest string that '+' may produce
+    final int maxStringLength;
+
+    EvaluationLimits(long maxSteps, long timeoutNanos, int maxStringLength){
+        this.maxSteps = maxSteps;
+        this.timeoutNanos = timeoutNanos;
+        this.maxStringLength = maxStringLength;
+    }
+
+    boolean any(){
+        return maxSteps > 0 || timeoutNanos > 0 || maxStringLength > 0;
+    }
+
+    /**
+     * Command line flags: --max-steps=N, --timeout-ms=N and --max-string=N.
+     * Returns these limits with the flag applied, or null if arg isn't one of them
+     * or its value is out of range (e.g. a timeout too long to hold in nanoseconds).
+     * */
+    EvaluationLimits withFlag(String arg){
+        int equals = arg.indexOf('=');
+        if(equals < 0) return null;
+        String name = arg.substring(0, equals);
+        long value;
+        try {
+            value = Long.parseLong(arg.substring(equals + 1));
+        } catch (NumberFormatException e){
+            return null;
+        }
+        if(value < 0) return null;
+        switch (name){
+            case "--max-steps":
+                return new EvaluationLimits(value, timeoutNanos, maxStringLength);
+            case "--timeout-ms":
+                long nanos;
+                try {
+                    nanos = Math.multiplyExact(value, 1_000_000L);
+                } catch (ArithmeticException e){
+                    return null;
+                }
+                return new EvaluationLimits(maxSteps, nanos, maxStringLength);
+            case "--max-string":
+                return new EvaluationLimits(maxSteps, timeoutNanos, (int) Math.min(value, Integer.MAX_VALUE));
+        }
+        return null;
+    }
+}
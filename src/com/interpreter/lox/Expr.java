@@ -8,6 +8,13 @@ abstract class Expr {
         R visitUnary(Unary unary);
         R visitLiteral(Literal literal);
     }
+    // set by ExprFactory.Interning when this node is handed out more than once
+    boolean shared = false;
+    // rough evaluation cost: nodes in the subtree, filled in by ExprFactory
+    int cost = 1;
+    // operand types this node has seen (Interpreter.NUMBER etc.), left operand in the low bits
+    int feedback = 0;
+
     static class Binary extends Expr {
         Binary (Expr left, Token operator, Expr right) {
             this.left = left;
@@ -0,0 +1,116 @@
+package com.interpreter.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The Parser builds every node through one of these. The plain factory just
+ * allocates. Interning hash-conses: a node that is structurally identical to
+ * one it already made (same kind, same operator, same children) is handed out
+ * again instead, so repeated subexpressions become one shared node and the
+ * tree becomes a DAG.
+ * Both fill in Expr.cost, which parallel evaluation uses to find big subtrees.
+ * */
+class ExprFactory {
+    Expr binary(Expr left, Token operator, Expr right){
+        return weigh(new Expr.Binary(left, operator, right), (long) left.cost + right.cost);
+    }
+
+    Expr grouping(Expr expression){
+        return weigh(new Expr.Grouping(expression), expression.cost);
+    }
+
+    Expr ternary(Expr expr1, Expr expr2, Expr expr3){
+        return weigh(new Expr.Ternary(expr1, expr2, expr3), (long) expr1.cost + expr2.cost + expr3.cost);
+    }
+
+    Expr unary(Token operator, Expr right){
+        return weigh(new Expr.Unary(operator, right), right.cost);
+    }
+
+    Expr literal(Object value){
+        return new Expr.Literal(value);
+    }
+
+    // a node costs one plus its children. Shared nodes count once per use, and
+    // with enough sharing that can overflow, so it stops at Integer.MAX_VALUE
+    private static Expr weigh(Expr expr, long children){
+        expr.cost = (int) Math.min(Integer.MAX_VALUE, 1 + children);
+        return expr;
+    }
+
+    /**
+     * Interns nodes for as long as the factory lives: use a new one per parse,
+     * or keep one around to share nodes across parses.
+     * Children are interned before their parents, so comparing children by
+     * identity is the same as comparing them structurally. That keeps keys
+     * cheap to hash. Operators are keyed by type and line, not by Token, so
+     * runtime errors from a shared node still point at the right line.
+     * */
+    static class Interning extends ExprFactory {
+        private record Key(Class<? extends Expr> kind, TokenType operator, int line,
+                           Expr first, Expr second, Expr third, Object value) {}
+
+        private final Map<Key, Expr> nodes = new HashMap<>();
+        private long requested = 0;
+
+        @Override
+        Expr binary(Expr left, Token operator, Expr right){
+            Key key = new Key(Expr.Binary.class, operator.type, operator.line, left, right, null, null);
+            Expr expr = lookup(key);
+            return expr != null ? expr : add(key, super.binary(left, operator, right));
+        }
+
+        @Override
+        Expr grouping(Expr expression){
+            Key key = new Key(Expr.Grouping.class, null, 0, expression, null, null, null);
+            Expr expr = lookup(key);
+            return expr != null ? expr : add(key, super.grouping(expression));
+        }
+
+        @Override
+        Expr ternary(Expr expr1, Expr expr2, Expr expr3){
+            Key key = new Key(Expr.Ternary.class, null, 0, expr1, expr2, expr3, null);
+            Expr expr = lookup(key);
+            return expr != null ? expr : add(key, super.ternary(expr1, expr2, expr3));
+        }
+
+        @Override
+        Expr unary(Token operator, Expr right){
+            Key key = new Key(Expr.Unary.class, operator.type, operator.line, right, null, null, null);
+            Expr expr = lookup(key);
+            return expr != null ? expr : add(key, super.unary(operator, right));
+        }
+
+        @Override
+        Expr literal(Object value){
+            // Double.equals() tells 0.0 from -0.0, so those stay apart
+            Key key = new Key(Expr.Literal.class, null, 0, null, null, null, value);
+            Expr expr = lookup(key);
+            return expr != null ? expr : add(key, super.literal(value));
+        }
+
+        // the node we already have for key, now marked as shared, or null
+        private Expr lookup(Key key){
+            requested++;
+            Expr expr = nodes.get(key);
+            if(expr != null) expr.shared = true;
+            return expr;
+        }
+
+        private Expr add(Key key, Expr expr){
+            nodes.put(key, expr);
+            return expr;
+        }
+
+        // how many nodes the parser asked for
+        long requested(){
+            return requested;
+        }
+
+        // how many distinct nodes were actually allocated
+        int allocated(){
+            return nodes.size();
+        }
+    }
+}
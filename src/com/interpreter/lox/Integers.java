@@ -0,0 +1,39 @@
+package com.interpreter.lox;
+
+/**
+ * Integer mode (jlox --integers). Integral number literals are scanned as Long
+ * instead of Double, and the interpreter keeps +, - and * of two Longs in long
+ * arithmetic. Everything else gives a Double, as it always has:
+ *   - division,
+ *   - anything with a fractional (Double) operand,
+ *   - a result outside +-2^53.
+ *
+ * A Long is only ever used for a value that double arithmetic would produce
+ * exactly, so every result, and everything stringify() prints, is the same
+ * as in the default mode. The one value a long can't hold is -0.0, which
+ * stays a Double.
+ * */
+final class Integers {
+    // every long up to this size is exactly a double too; above it doubles skip integers
+    static final long MAX_EXACT = 1L << 53;
+
+    // stands in for every -0.0 an integer operation produces
+    static final Double NEGATIVE_ZERO = -0.0;
+
+    private Integers(){}
+
+    // -2^53 <= value < 2^53 in one unsigned compare; 2^53 itself may as well go the double way
+    static boolean isExact(long value){
+        return (value + MAX_EXACT) >>> 54 == 0;
+    }
+
+    // both operands need at most 26 bits, so the product needs at most 52 and can't leave the exact range
+    static boolean smallFactors(long left, long right){
+        return ((left + (1L << 26)) | (right + (1L << 26))) >>> 27 == 0;
+    }
+
+    // Long.valueOf(), so small values (-128..127) share the JDK's cached boxes
+    static Long valueOf(long value){
+        return Long.valueOf(value);
+    }
+}
@@ -1,16 +1,128 @@
 package com.interpreter.lox;
 
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
 public class Interpreter implements Expr.Visitor<Object>{
+    // Results are formatted into one reusable buffer and written to a buffered
+    // sink, instead of building a fresh String per result and paying for a
+    // synchronized System.out.println every time. Call flush() to push them out.
+    private final StringBuilder text = new StringBuilder();
+    private final PrintWriter out;
+    // When on, a node the parser handed out more than once (Expr.shared, see
+    // ExprFactory.Interning) is evaluated once per top-level expression and its
+    // value reused. Lox expressions have no side effects, so this is safe.
+    private boolean memoizeShared = false;
+    private final Map<Expr, Object> memo = new IdentityHashMap<>();
+    // stands in for a nil value in memo
+    private static final Object NO_VALUE = new Object();
+
+    // Limits for each top-level expression. evaluate() only decrements countdown;
+    // the limits themselves (and the clock) are looked at when it runs out, which
+    // is every CLOCK_INTERVAL nodes when there are any limits.
+    private EvaluationLimits limits = EvaluationLimits.NONE;
+    private static final long CLOCK_INTERVAL = 1024;
+    private long countdown = Long.MAX_VALUE;
+    // Steps not yet handed out to a countdown. Parallel tasks draw from the same
+    // pool, so a task may leave up to CLOCK_INTERVAL of its share unused.
+    private AtomicLong stepsLeft;
+    private long deadline;
+
+    // When above 0, a Binary subtree costing at least this much (Expr.cost) has its
+    // operands evaluated as ForkJoin tasks. See evaluateInParallel().
+    private int parallelThreshold = 0;
+    static final int DEFAULT_PARALLEL_THRESHOLD = 8192;
+
+    // Type feedback: every Unary and Binary node ORs the types of its operands
+    // into Expr.feedback (left operand in the low 4 bits, right operand in the
+    // next 4). Once a node has only ever seen numbers it takes a fast path that
+    // skips the generic operand checks. TypeProfile saves and restores the bits.
+    static final int NUMBER = 1;
+    static final int STRING = 2;
+    static final int BOOLEAN = 4;
+    static final int NIL = 8;
+    private static final int NUMBERS_ONLY = NUMBER | NUMBER << 4;
+
+    Interpreter(){
+        this(new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16), false));
+    }
+
+    Interpreter(PrintWriter out){
+        this.out = out;
+    }
+
+    void memoizeShared(boolean on){
+        memoizeShared = on;
+    }
+
+    void limits(EvaluationLimits limits){
+        this.limits = limits;
+    }
 
-    void interpret(Expr expression){
+    // 0 turns parallel evaluation off
+    void parallel(int threshold){
+        parallelThreshold = threshold;
+    }
+
+    // an interpreter for a parallel task: same settings, same step pool and deadline, its own memo
+    private Interpreter forTask(){
+        Interpreter task = new Interpreter(out);
+        task.memoizeShared = memoizeShared;
+        task.parallelThreshold = parallelThreshold;
+        task.limits = limits;
+        if(limits.any()){
+            task.stepsLeft = stepsLeft;
+            task.deadline = deadline;
+            task.refillCountdown();
+        }
+        return task;
+    }
+
+    // prints the value of each expression in turn, stopping at the first runtime error
+    void interpret(List<Expr> expressions){
+        text.setLength(0);
+        try {
+            RuntimeError error = interpret(expressions, text);
+            if(error != null) Lox.runtimeError(error);
+        } catch (LimitExceededError error){
+            Lox.limitExceeded(error);
+        }
+        out.append(text);
+    }
+
+    /**
+     *  Appends the value of each expression, one per line, to builder. Instead of
+     *  reporting a runtime error we hand it back (null when all went well), so
+     *  callers that keep their own diagnostics don't go through Lox.
+     *  Going over the limits still throws LimitExceededError.
+     * */
+    RuntimeError interpret(List<Expr> expressions, StringBuilder builder){
         try {
-            Object value = evaluate(expression);
-            System.out.println(stringify(value));
+            for(Expr expression : expressions){
+                if(!memo.isEmpty()) memo.clear();
+                startLimits();
+                Object value = evaluate(expression);
+                stringify(value, builder);
+                builder.append(System.lineSeparator());
+            }
+            return null;
         } catch (RuntimeError error){
-            Lox.runtimeError(error);
+            return error;
         }
     }
 
+    void flush(){
+        out.flush();
+    }
+
     @Override
     public Object visitLiteral(Expr.Literal expr){
         return expr.value;
@@ -19,9 +131,15 @@ public class Interpreter implements Expr.Visitor<Object>{
     @Override
     public Object visitUnary(Expr.Unary expr) {
         Object right = evaluate(expr.right);
+        if(expr.feedback == NUMBER && expr.operator.type == TokenType.MINUS){
+            if(right instanceof Double) return -(double) right;
+            if(right instanceof Long) return negate((long) right);
+        }
+        record(expr, typeOf(right));
         switch (expr.operator.type){
             case MINUS:
                 checkNumberOperand(expr.operator, right);
+                if(right instanceof Long) return negate((long) right);
                 return -(double)right;
             case BANG:
                 return !isTruthy(right);
@@ -32,7 +150,7 @@ public class Interpreter implements Expr.Visitor<Object>{
     }
 
     private void checkNumberOperand(Token operator, Object operand) {
-        if(operand instanceof Double) return;
+        if(operand instanceof Double || operand instanceof Long) return;
         throw new RuntimeError(operator, "Operand must be a number.");
     }
 
@@ -45,54 +163,254 @@ public class Interpreter implements Expr.Visitor<Object>{
     }
     @Override
     public Object visitBinary(Expr.Binary expr) {
+        if(parallelThreshold > 0 && expr.cost >= parallelThreshold) return evaluateInParallel(expr);
         // first evaluate both operands, we evaluate the operands in left-to-right order
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
-        // now, evaluate the binary operation!
+        if(expr.feedback == NUMBERS_ONLY){
+            if(left instanceof Double && right instanceof Double) return numbers(expr, (double) left, (double) right);
+            if(left instanceof Long && right instanceof Long) return integers(expr, (long) left, (long) right);
+        }
+        record(expr, typeOf(left) | typeOf(right) << 4);
+        return binary(expr, left, right);
+    }
+
+    private static int typeOf(Object value) {
+        if(value instanceof Double || value instanceof Long) return NUMBER;
+        if(value instanceof String) return STRING;
+        if(value instanceof Boolean) return BOOLEAN;
+        if(value == null) return NIL;
+        return 0;
+    }
+
+    // only writes when something new turns up, so a stable node costs a read and a compare
+    private static void record(Expr expr, int types) {
+        if((expr.feedback | types) != expr.feedback) expr.feedback |= types;
+    }
+
+    // binary() for two numbers, without the type checks. Must give exactly what binary() gives.
+    private Object numbers(Expr.Binary expr, double left, double right) {
+        switch (expr.operator.type){
+            case GREATER: return left > right;
+            case GREATER_EQUAL: return left >= right;
+            case LESS: return left < right;
+            case LESS_EQUAL: return left <= right;
+            // isEqual() uses Double.equals(): NaN equals NaN, 0.0 doesn't equal -0.0
+            case BANG_EQUAL: return Double.doubleToLongBits(left) != Double.doubleToLongBits(right);
+            case EQUAL_EQUAL: return Double.doubleToLongBits(left) == Double.doubleToLongBits(right);
+            case PLUS: return left + right;
+            case MINUS: return right - left;
+            case STAR: return left * right;
+            case SLASH: return left / right;
+        }
+        return binary(expr, left, right);
+    }
+
+    /**
+     * binary() for two Longs (integer mode, see Integers). Sums, differences and
+     * products stay longs while they are within 2^53, where the double
+     * arithmetic would have been exact too. Otherwise we do exactly the double
+     * arithmetic binary() does, so the result is always the same value.
+     * */
+    private Object integers(Expr.Binary expr, long left, long right) {
+        switch (expr.operator.type){
+            case GREATER: return left > right;
+            case GREATER_EQUAL: return left >= right;
+            case LESS: return left < right;
+            case LESS_EQUAL: return left <= right;
+            case BANG_EQUAL: return left != right;
+            case EQUAL_EQUAL: return left == right;
+            case PLUS: {
+                // both are within 2^53, so the sum can't overflow a long
+                long sum = left + right;
+                if(Integers.isExact(sum)) return Integers.valueOf(sum);
+                return (double) left + (double) right;
+            }
+            case MINUS: {
+                long difference = right - left;
+                if(Integers.isExact(difference)) return Integers.valueOf(difference);
+                return (double) right - (double) left;
+            }
+            case STAR: {
+                long product = left * right;
+                // 0 * -3 is -0.0 in double arithmetic. Test the operands, not the
+                // product: -2^32 * 2^32 wraps to a long 0 but is -2^64 as a double.
+                if((left == 0 || right == 0) && (left | right) < 0) return Integers.NEGATIVE_ZERO;
+                if(Integers.smallFactors(left, right)) return Integers.valueOf(product);
+                return bigProduct(left, right, product);
+            }
+            case SLASH: return (double) left / (double) right;
+        }
+        // unreachable, like in binary()
+        return null;
+    }
+
+    // integers() for a product that might be too big for a long, or for 2^53
+    private static Object bigProduct(long left, long right, long product) {
+        // the high half of the 128-bit product is only the sign when nothing overflowed
+        if(Math.multiplyHigh(left, right) == product >> 63 && Integers.isExact(product)) return Integers.valueOf(product);
+        return (double) left * (double) right;
+    }
+
+    private static Object negate(long value) {
+        // not a ?: expression, that would unbox both sides to double
+        if(value == 0) return Integers.NEGATIVE_ZERO;
+        return Integers.valueOf(-value);
+    }
+
+    // a number operand as a double, whether it's a Double or (integer mode) a Long
+    private static double number(Object value) {
+        if(value instanceof Double) return (double) value;
+        return (long) value;
+    }
+
+    // now, evaluate the binary operation!
+    private Object binary(Expr.Binary expr, Object left, Object right) {
+        if(left instanceof Long && right instanceof Long) return integers(expr, (long) left, (long) right);
         switch (expr.operator.type){
             case GREATER:
                 checkNumberOperands(expr.operator, left, right);
-                return (double) left > (double) right;
+                return number(left) > number(right);
             case GREATER_EQUAL:
                 checkNumberOperands(expr.operator, left, right);
-                return (double) left >= (double) right;
+                return number(left) >= number(right);
             case LESS:
                 checkNumberOperands(expr.operator, left, right);
-                return (double) left < (double) right;
+                return number(left) < number(right);
             case LESS_EQUAL:
                 checkNumberOperands(expr.operator, left, right);
-                return (double) left <= (double) right;
+                return number(left) <= number(right);
             case BANG_EQUAL:
                 return !isEqual(left, right);
             case EQUAL_EQUAL:
                 return isEqual(left, right);
             case PLUS:
-                if(left instanceof Double && right instanceof Double)
+                if(isNumber(left) && isNumber(right))
                     //  add if both number
-                    return (double)left + (double) right;
-                else if(left instanceof String && right instanceof String)
+                    return number(left) + number(right);
+                else if(left instanceof String && right instanceof String) {
                     //  concatenate if strings
+                    checkStringLength(expr.operator, (String) left, (String) right);
                     return (String)left + (String)right;
+                }
                 throw new RuntimeError(expr.operator, "Operands must be either two numbers or two strings.");
             case MINUS:
                 checkNumberOperands(expr.operator, left, right);
-                return (double)right - (double) left;
+                return number(right) - number(left);
             case STAR:
                 checkNumberOperands(expr.operator, left, right);
-                return (double) left * (double) right;
+                return number(left) * number(right);
             case SLASH:
                 checkNumberOperands(expr.operator, left, right);
-                return (double) left / (double) right;
+                return number(left) / number(right);
         }
         // unreachable
         return null;
     }
 
+    /**
+     * A long chain like a + b + c + ... is a left-leaning spine of Binary nodes.
+     * We walk down the spine all the way to its bottom-left leaf, evaluate its
+     * operands as ForkJoin tasks (in chunks of roughly parallelThreshold cost),
+     * then fold the values back up the spine
+     * in the same left-to-right order as the sequential code. The arithmetic is
+     * done in the same order, so the results are identical. The fold also
+     * rethrows the first error the sequential order would have hit: an operand's
+     * error before the operator that uses it. Big operands go parallel in turn
+     * when their task evaluates them.
+     * No part of the spine is left to the recursive visitBinary(): even a chain
+     * just under the threshold is thousands of frames deep, enough to overflow
+     * a default stack.
+     * */
+    private Object evaluateInParallel(Expr.Binary top) {
+        List<Expr.Binary> spine = new ArrayList<>();
+        Expr node = top;
+        while(node instanceof Expr.Binary){
+            spine.add((Expr.Binary) node);
+            node = ((Expr.Binary) node).left;
+        }
+        // operands in evaluation order: the bottom-left one, then each right operand going up
+        int count = spine.size() + 1;
+        Expr[] operands = new Expr[count];
+        operands[0] = node;
+        for(int i = 1; i < count; i++) operands[i] = spine.get(count - 1 - i).right;
+
+        Object[] values = new Object[count];
+        RuntimeException[] errors = new RuntimeException[count];
+        List<Operands> tasks = new ArrayList<>();
+        int from = 0;
+        long chunkCost = 0;
+        for(int i = 0; i < count; i++){
+            chunkCost += operands[i].cost;
+            if(chunkCost >= parallelThreshold || i == count - 1){
+                tasks.add(new Operands(forTask(), operands, from, i + 1, values, errors));
+                from = i + 1;
+                chunkCost = 0;
+            }
+        }
+        ForkJoinTask.invokeAll(tasks);
+
+        if(errors[0] != null) throw errors[0];
+        Object value = values[0];
+        for(int i = 1; i < count; i++){
+            if(errors[i] != null) throw errors[i];
+            // the spine nodes are visited here, not through evaluate()
+            if(--countdown < 0) checkLimits();
+            Expr.Binary expr = spine.get(count - 1 - i);
+            record(expr, typeOf(value) | typeOf(values[i]) << 4);
+            value = binary(expr, value, values[i]);
+        }
+        return value;
+    }
+
+    // evaluates operands[from, to) into values, stopping at the first error in the chunk
+    private static class Operands extends RecursiveAction {
+        private final Interpreter interpreter;
+        private final Expr[] operands;
+        private final int from;
+        private final int to;
+        private final Object[] values;
+        private final RuntimeException[] errors;
+
+        Operands(Interpreter interpreter, Expr[] operands, int from, int to, Object[] values, RuntimeException[] errors){
+            this.interpreter = interpreter;
+            this.operands = operands;
+            this.from = from;
+            this.to = to;
+            this.values = values;
+            this.errors = errors;
+        }
+
+        @Override
+        protected void compute(){
+            for(int i = from; i < to; i++){
+                try {
+                    values[i] = interpreter.evaluate(operands[i]);
+                } catch (RuntimeError | LimitExceededError error){
+                    // nothing after this in the chunk matters: the fold stops here at the latest
+                    errors[i] = error;
+                    return;
+                }
+            }
+        }
+    }
+
+    // checked before concatenating, so an oversized string is never built
+    private void checkStringLength(Token operator, String left, String right) {
+        if(limits.maxStringLength == 0) return;
+        if((long) left.length() + right.length() > limits.maxStringLength)
+            throw new LimitExceededError(operator, "String would be longer than " + limits.maxStringLength + " characters.");
+    }
+
     private void checkNumberOperands(Token operator, Object left, Object right) {
-        if(left instanceof Double && right instanceof Double) return;
+        if(isNumber(left) && isNumber(right)) return;
         throw new RuntimeError(operator, "Both operands must be numbers.");
     }
 
+    private static boolean isNumber(Object value) {
+        return value instanceof Double || value instanceof Long;
+    }
+
     /**
      *  the equality operators support operands of any type, even mixed ones.
      *  You can’t ask Lox if 3 is less than "three", but you can ask if it’s equal to it.
@@ -100,19 +418,45 @@ public class Interpreter implements Expr.Visitor<Object>{
     private boolean isEqual(Object a, Object b) {
         if(a == null && b == null) return true;
         if(a == null) return false;
+        // integer mode: 3 equals 3.0, and like Double.equals() 0 doesn't equal -0.0
+        if(a instanceof Long && b instanceof Double || a instanceof Double && b instanceof Long)
+            return Double.doubleToLongBits(number(a)) == Double.doubleToLongBits(number(b));
         return a.equals(b);
     }
 
-    private String stringify(Object object) {
-        if(object == null) return "nil";
-        if(object instanceof Double){
-            String text = object.toString();
-            if(text.endsWith(".0")){
-                text = text.substring(0, text.length()-2);
-                return text;
-            }
+    /**
+     *  Appends the printed form of a value to builder. Numbers drop a trailing
+     *  ".0", the same text Double.toString() gives with the suffix cut off.
+     * */
+    private void stringify(Object object, StringBuilder builder) {
+        if(object == null) builder.append("nil");
+        else if(object instanceof Double) appendNumber((double) object, builder);
+        else if(object instanceof Long) appendNumber((long) object, builder);
+        else if(object instanceof String) builder.append((String) object);
+        else builder.append(object);
+    }
+
+    // Double.toString() switches to "1.0E7" style at 10^7, so integral values
+    // below that print exactly like a long. -0.0 still has to come out as "-0".
+    private static final double PLAIN_INTEGER_LIMIT = 1e7;
+
+    private static void appendNumber(double number, StringBuilder builder) {
+        long integer = (long) number;
+        if(integer == number && Math.abs(number) < PLAIN_INTEGER_LIMIT){
+            if(integer == 0 && Double.doubleToRawLongBits(number) != 0) builder.append('-');
+            builder.append(integer);
+            return;
         }
-        return object.toString();
+        // everything else (fractions, exponents, NaN, Infinity) goes through the JDK
+        String text = Double.toString(number);
+        if(text.endsWith(".0")) builder.append(text, 0, text.length()-2);
+        else builder.append(text);
+    }
+
+    // the same text as the equal double: only a Long that's too big to print plainly goes the double way
+    private static void appendNumber(long number, StringBuilder builder) {
+        if(Math.abs(number) < PLAIN_INTEGER_LIMIT) builder.append(number);
+        else appendNumber((double) number, builder);
     }
 
     @Override
@@ -126,8 +470,47 @@ public class Interpreter implements Expr.Visitor<Object>{
     }
 
 
+    private void startLimits() {
+        if(!limits.any()){
+            countdown = Long.MAX_VALUE;
+            return;
+        }
+        stepsLeft = new AtomicLong(limits.maxSteps > 0 ? limits.maxSteps : Long.MAX_VALUE);
+        if(limits.timeoutNanos > 0) deadline = System.nanoTime() + limits.timeoutNanos;
+        refillCountdown();
+    }
+
+    private void refillCountdown() {
+        for(;;){
+            long left = stepsLeft.get();
+            long steps = Math.min(left, CLOCK_INTERVAL);
+            if(stepsLeft.compareAndSet(left, left - steps)){
+                countdown = steps;
+                return;
+            }
+        }
+    }
+
+    // countdown ran out: see which limit that was, if any, and carry on
+    private void checkLimits() {
+        if(stepsLeft.get() == 0)
+            throw new LimitExceededError(null, "Evaluation exceeded " + limits.maxSteps + " steps.");
+        if(limits.timeoutNanos > 0 && System.nanoTime() - deadline > 0)
+            throw new LimitExceededError(null, "Evaluation exceeded " + limits.timeoutNanos / 1_000_000 + " ms.");
+        refillCountdown();
+        countdown--; // for the node that ran it out
+    }
+
     private Object evaluate(Expr expr) {
-        return expr.accept(this);
+        if(--countdown < 0) checkLimits();
+        if(!memoizeShared || !expr.shared || expr instanceof Expr.Literal) return expr.accept(this);
+        Object value = memo.get(expr);
+        if(value == null){
+            value = expr.accept(this);
+            memo.put(expr, value == null ? NO_VALUE : value);
+            return value;
+        }
+        return value == NO_VALUE ? null : value;
     }
 
 }
@@ -0,0 +1,16 @@
+package com.interpreter.lox;
+
+/**
+ * Thrown when an evaluation goes over one of its EvaluationLimits. This is not a
+ * RuntimeError: the program itself may be fine, we just refused to finish it, so
+ * callers can report it (and retry, or give up) differently.
+ * */
+public class LimitExceededError extends RuntimeException {
+    // the operator that went over the limit, null for step and time limits
+    final Token token;
+
+    LimitExceededError(Token token, String message) {
+        super(message, null, false, false);
+        this.token = token;
+    }
+}
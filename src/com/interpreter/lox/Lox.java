@@ -5,7 +5,9 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
 public class Lox {
@@ -13,26 +15,83 @@ public class Lox {
     // REPL session reuse the same interpreter. The interpreter stores global
     // variables. Those variables should persist throughout the REPL session.
     private static final Interpreter interpreter = new Interpreter();
-    static boolean hadError = false;
-    private static boolean hadRuntimeError = false;
+    // errors are collected here and only written to System.err by reportErrors()
+    private static final Diagnostics diagnostics = new Diagnostics();
+    // --share: intern identical subexpressions and evaluate each shared one once
+    private static boolean share = false;
+    // --integers: integral literals and results stay longs (see Integers)
+    private static boolean integers = false;
+    // --max-steps=N, --timeout-ms=N, --max-string=N
+    private static EvaluationLimits limits = EvaluationLimits.NONE;
+    // --profile=FILE: type feedback loaded at start-up and saved at shutdown, null when off
+    private static TypeProfile profile = null;
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) { // file mode
-            runFile(args[0]);
+        boolean stream = false;
+        // loaded after the loop, so a repeated --profile= still means one profile and one save (the last flag wins)
+        Path profilePath = null;
+        List<String> scripts = new ArrayList<>();
+        for (String arg : args) {
+            switch (arg) {
+                case "--stream" -> stream = true;
+                case "--share" -> share = true;
+                case "--integers" -> integers = true;
+                case "--parallel" -> interpreter.parallel(Interpreter.DEFAULT_PARALLEL_THRESHOLD);
+                default -> {
+                    EvaluationLimits withLimit = limits.withFlag(arg);
+                    if (withLimit != null) limits = withLimit;
+                    else if (arg.startsWith("--profile=")) profilePath = Paths.get(arg.substring("--profile=".length()));
+                    else if (arg.startsWith("--")) usage();
+                    else scripts.add(arg);
+                }
+            }
+        }
+        if (scripts.size() > 1 || (stream && !scripts.isEmpty())) usage();
+        if (profilePath != null) loadProfile(profilePath);
+        interpreter.memoizeShared(share);
+        interpreter.limits(limits);
+
+        if (stream) { // pipelined mode for piped input
+            runStream();
+        } else if (scripts.size() == 1) { // file mode
+            runFile(scripts.get(0));
         } else { // interpreter mode
             runPrompt();
         }
     }
+    private static void usage() {
+        System.out.println("Usage: jlox [--share] [--integers] [--parallel] [--max-steps=N] [--timeout-ms=N] [--max-string=N] [--profile=FILE] [--stream | script]");
+        System.exit(64);
+    }
+    private static void loadProfile(Path path) {
+        TypeProfile loaded = TypeProfile.load(path);
+        profile = loaded;
+        // a hook, so the profile is saved on every way out, System.exit() included
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                loaded.save(path);
+            } catch (IOException e) {
+                System.err.println("Could not save type profile " + path + ": " + e.getMessage());
+            }
+        }));
+    }
     private static void runFile(String path) throws IOException {
         byte[] bytes = Files.readAllBytes(Paths.get(path));
         run(new String(bytes, Charset.defaultCharset()));
+        interpreter.flush();
+        reportErrors();
 
         // Indicate an error in the exit code.
-        if (hadError) System.exit(65);
-        if(hadRuntimeError) System.exit(70);
+        if (diagnostics.hadError()) System.exit(65);
+        if(diagnostics.hadRuntimeError()) System.exit(70);
+    }
+    private static void runStream() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(System.in), 1 << 16);
+        Pipeline pipeline = new Pipeline(interpreter, share, integers, profile);
+        pipeline.run(reader, System.out, System.err);
+
+        if (pipeline.hadError()) System.exit(65);
+        if (pipeline.hadRuntimeError()) System.exit(70);
     }
     private static void runPrompt() throws IOException {
         InputStreamReader input  = new InputStreamReader(System.in);
@@ -43,37 +102,40 @@ public class Lox {
             String line = reader.readLine();
             if (line == null) break;
             run(line);
+            interpreter.flush();
+            reportErrors();
         }
     }
     private static void run(String source) {
-        Scanner scanner = new Scanner(source);
+        Scanner scanner = new Scanner(source, diagnostics);
+        scanner.integers(integers);
         List<Token> tokens = scanner.scanTokens();
-        Parser parser = new Parser(tokens);
-        Expr expression = parser.parse();
+        // a fresh factory per run, so interned nodes don't pile up across REPL lines
+        Parser parser = new Parser(tokens, diagnostics, share ? new ExprFactory.Interning() : new ExprFactory());
+        List<Expr> expressions = parser.parse();
         //  Stop if there was a syntax error;
-        if(hadError) return;
-        interpreter.interpret(expression);
-//        System.out.println(new AstPrinter().print(expression));
+        if(diagnostics.hadError()) return;
+        if(profile != null) profile.apply(source, expressions);
+        interpreter.interpret(expressions);
+        if(profile != null) profile.record(source, expressions);
+//        System.out.println(new AstPrinter().print(expressions.get(0)));
     }
     public static void printTokens(List<Token> tokens){
         for(Token token : tokens){
             System.out.println(token.toString());
         }
     }
-    static void error(Token token, String message){
-        if(token.type == TokenType.EOF) report(token.line, " at end", message);
-        else report(token.line, " at '" + token.lexeme + "'", message);
-    }
-    static void error(int line, String message) {
-        report(line, "", message);
+    public static void runtimeError(RuntimeError error) {
+        diagnostics.runtimeError(error);
     }
-    private static void report(int line, String where, String message) {
-        System.err.println("[line " + line + "] Error" + where + ": " + message);
-         hadError = true;
+    public static void limitExceeded(LimitExceededError error) {
+        diagnostics.limitExceeded(error);
     }
-
-    public static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
-        hadRuntimeError = true;
+    private static void reportErrors() {
+        if(diagnostics.pending().isEmpty()) return;
+        StringBuilder text = new StringBuilder();
+        diagnostics.report(text);
+        System.err.print(text);
+        System.err.flush();
     }
 }
\ No newline at end of file
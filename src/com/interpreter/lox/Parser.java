@@ -1,11 +1,13 @@
 package com.interpreter.lox;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import static com.interpreter.lox.TokenType.*;
 
 public class Parser {
     /**
+     * program        → ( expression ( ";" expression )* ";"? )? EOF;
      * expression     → comma | expression "?" expression ":" expression;
      * comma          → equality ( "," equality )*;
      * equality       → comparison ( ( "!=" | "==" ) comparison )* ;
@@ -18,109 +20,143 @@ public class Parser {
      *                | "(" expression ")";
      * */
 
+    // only used to unwind the parser, so skip the expensive stack trace capture
     private static class ParseError extends RuntimeException{
+        ParseError(){
+            super(null, null, false, false);
+        }
+    }
+    // Binding power of each binary operator, indexed by TokenType.ordinal().
+    // 0 means "not a binary operator", which also stops binary() at EOF.
+    private static final int[] PRECEDENCE = new int[TokenType.values().length];
+    private static final int COMMA_PRECEDENCE = 1;
+    static {
+        PRECEDENCE[COMMA.ordinal()] = COMMA_PRECEDENCE;
+        PRECEDENCE[BANG_EQUAL.ordinal()] = PRECEDENCE[EQUAL_EQUAL.ordinal()] = 2;
+        PRECEDENCE[GREATER.ordinal()] = PRECEDENCE[GREATER_EQUAL.ordinal()] = 3;
+        PRECEDENCE[LESS.ordinal()] = PRECEDENCE[LESS_EQUAL.ordinal()] = 3;
+        PRECEDENCE[MINUS.ordinal()] = PRECEDENCE[PLUS.ordinal()] = 4;
+        PRECEDENCE[SLASH.ordinal()] = PRECEDENCE[STAR.ordinal()] = 5;
+    }
+
+    // token classes as bit sets, so matching one doesn't allocate a varargs array
+    private static final long UNARY_OPERATORS = mask(BANG, MINUS);
+    private static final long LITERALS = mask(NUMBER, STRING);
+
+    private static long bit(TokenType type) {
+        return 1L << type.ordinal();
+    }
 
+    private static long mask(TokenType... types) {
+        long mask = 0;
+        for(TokenType type : types){
+            if(type.ordinal() >= Long.SIZE) throw new IllegalArgumentException(type + " doesn't fit in a token mask");
+            mask |= bit(type);
+        }
+        return mask;
     }
+
     private final List<Token> tokens;
     private int current = 0;
+    // where syntax errors go
+    private final Diagnostics diagnostics;
+    // makes the nodes, possibly sharing identical ones (see ExprFactory.Interning)
+    private final ExprFactory factory;
+
+    Parser(List<Token> tokens, Diagnostics diagnostics){
+        this(tokens, diagnostics, new ExprFactory());
+    }
 
-    Parser(List<Token> tokens){
+    Parser(List<Token> tokens, Diagnostics diagnostics, ExprFactory factory){
         this.tokens = tokens;
+        this.diagnostics = diagnostics;
+        this.factory = factory;
+    }
+
+    /**
+     * Parses every expression in the input. A syntax error doesn't stop the
+     * parse: we report it, synchronize() to the next ';' and carry on, so one
+     * pass finds all the errors. Expressions that parsed fine are still returned.
+     * Each recovery consumes at least one token and we never back up, so this
+     * stays linear in the number of tokens however many errors there are.
+     * */
+    List<Expr> parse(){
+        List<Expr> expressions = new ArrayList<>();
+        while(!isAtEnd()){
+            Expr expr = statement();
+            if(expr != null) expressions.add(expr);
+        }
+        return expressions;
     }
 
-    Expr parse(){
+    private Expr statement(){
         try{
-            return expression();
+            Expr expr = expression();
+            if(!isAtEnd() && !match(SEMICOLON)){
+                // the expression itself is fine, so keep it and skip what follows
+                error(peek(), "Expect ';' after expression.");
+                synchronize();
+            }
+            return expr;
         } catch (ParseError error){
             /*
              * Syntax error recovery is the parser’s job, so we don’t want
              * the ParseError exception to escape into the rest of the interpreter.
              * */
+            synchronize();
             return null;
         }
     }
 
     private Expr expression(){
-        Expr expr = comma();
+        Expr expr = binary(COMMA_PRECEDENCE);
         if(match(QUERY)){
             Expr expr2 = expression();
             consume(COLON, "Expect : after expression");
             Expr expr3 = expression();
-            expr = new Expr.Ternary(expr, expr2, expr3);
-        }
-        return expr;
-    }
-
-    private Expr comma() {
-        Expr expr = equality();
-        while(match(COMMA)){
-            Token Operator = previous();
-            Expr right = equality();
-            expr = new Expr.Binary(expr, Operator, right);
-        }
-        return expr;
-    }
-
-
-    private Expr equality() {
-        Expr expr = comparison();
-        while(match(BANG_EQUAL, EQUAL_EQUAL)){
-            Token Operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr, Operator, right);
-        }
-        return expr;
-    }
-
-    private Expr comparison() {
-        Expr expr = term();
-        while(match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)){
-            Token Operator = previous();
-            Expr right = term();
-            expr = new Expr.Binary(expr, Operator, right);
-        }
-        return expr;
-    }
-
-    private Expr term() {
-        Expr expr = factor();
-        while(match(MINUS, PLUS)){
-            Token Operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(expr, Operator, right);
+            expr = factory.ternary(expr, expr2, expr3);
         }
         return expr;
     }
 
-    private Expr factor() {
+    /**
+     * comma, equality, comparison, term and factor from the grammar above, parsed
+     * by precedence climbing (a Pratt parser) instead of one method per level.
+     * PRECEDENCE says how tightly each binary operator binds. All of them are
+     * left-associative, so the right operand only takes operators that bind tighter.
+     * An operand with no operator after it costs one table lookup, where it used
+     * to go down (and back up) through every level.
+     * */
+    private Expr binary(int minPrecedence) {
         Expr expr = unary();
-        while(match(SLASH, STAR)){
-            Token Operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, Operator, right);
+        for(;;){
+            int precedence = PRECEDENCE[peek().type.ordinal()];
+            if(precedence < minPrecedence) return expr;
+            Token Operator = advance();
+            Expr right = binary(precedence + 1);
+            expr = factory.binary(expr, Operator, right);
         }
-        return expr;
     }
 
     private Expr unary() {
-        if(match(BANG, MINUS)){
+        if(matchAny(UNARY_OPERATORS)){
             Token Operator = previous();
             Expr right = unary();
-            return new Expr.Unary(Operator, right);
+            return factory.unary(Operator, right);
         }
         return primary();
     }
 
     private Expr primary() {
-        if(match(FALSE)) return new Expr.Literal(false);
-        if(match(TRUE)) return new Expr.Literal(true);
-        if(match(NIL)) return new Expr.Literal(null);
-        if(match(NUMBER, STRING)) return new Expr.Literal(previous().literal);
+        if(match(FALSE)) return factory.literal(false);
+        if(match(TRUE)) return factory.literal(true);
+        if(match(NIL)) return factory.literal(null);
+        if(matchAny(LITERALS)) return factory.literal(previous().literal);
         if(match(LEFT_PAREN)) {
             Expr expr = expression();
             // error handler called for checking RIGHT_PAREN
             consume(RIGHT_PAREN, "Expect ')' after expression");
-            return new Expr.Grouping(expr);
+            return factory.grouping(expr);
 
         }
         throw error(peek(), "Expect expression.");
@@ -139,7 +175,7 @@ public class Parser {
     In those places, we simply report the error and keep on truckin’.
     **/
     private ParseError error(Token token, String message) {
-        Lox.error(token, message);
+        diagnostics.error(token, message);
         return new ParseError();
     }
 
@@ -176,16 +212,21 @@ public class Parser {
         return tokens.get(current-1);
     }
 
-    private boolean match(TokenType... types) {
-        for(TokenType type: types){
-            if(check(type)){
-                advance();
-                return true;
-            }
+    private boolean match(TokenType type) {
+        if(check(type)){
+            advance();
+            return true;
         }
         return false;
     }
 
+    // like match(), but for a whole class of tokens built with mask()
+    private boolean matchAny(long mask) {
+        if(isAtEnd() || (mask & bit(peek().type)) == 0) return false;
+        advance();
+        return true;
+    }
+
     private Token advance() {
         if(!isAtEnd()) current++;
         return previous();
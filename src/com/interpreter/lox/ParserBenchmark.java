@@ -0,0 +1,249 @@
+package com.interpreter.lox;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.interpreter.lox.TokenType.*;
+
+//  What?
+//  Times the precedence-table Parser against the recursive-descent parser it
+//  replaced (kept below as RecursiveDescent), for throughput and allocation,
+//  on the same pre-scanned tokens. It also checks that both give the same
+//  trees and the same diagnostics.
+//  Why?
+//  So the comparison can be rerun after changes to either the Parser or the
+//  node factories.
+//  It lives in this package because Parser, Diagnostics and Expr are package-private.
+
+/***
+ * Usage: parser_benchmark [expressions] [repetitions]
+ * */
+
+public class ParserBenchmark {
+    public static void main(String[] args){
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        List<Token> tokens = new Scanner(source(count, new Random(42)), new Diagnostics()).scanTokens();
+        check(tokens);
+        System.out.printf("%,d tokens%n", tokens.size());
+        for(int round = 0; round < 2; round++){
+            report("recursive descent", tokens, repetitions, false);
+            report("precedence table", tokens, repetitions, true);
+        }
+    }
+
+    //  fastest repetition in ms, and bytes allocated by one parse
+    private static void report(String name, List<Token> tokens, int repetitions, boolean table){
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long best = Long.MAX_VALUE;
+        long allocated = 0;
+        for(int i = 0; i < repetitions; i++){
+            long bytes = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            parse(tokens, new Diagnostics(), table);
+            best = Math.min(best, System.nanoTime() - start);
+            allocated = threads.getThreadAllocatedBytes(thread) - bytes;
+        }
+        System.out.printf("%-18s %7.1f ms  %7.1f MiB%n", name, best / 1e6, allocated / (1024.0 * 1024.0));
+    }
+
+    private static List<Expr> parse(List<Token> tokens, Diagnostics diagnostics, boolean table){
+        return table ? new Parser(tokens, diagnostics).parse() : new RecursiveDescent(tokens, diagnostics).parse();
+    }
+
+    //  same trees (as printed by AstPrinter) and same diagnostics from both parsers
+    private static void check(List<Token> tokens){
+        StringBuilder[] results = new StringBuilder[2];
+        for(int i = 0; i < 2; i++){
+            Diagnostics diagnostics = new Diagnostics();
+            results[i] = new StringBuilder();
+            for(Expr expr : parse(tokens, diagnostics, i == 1)) results[i].append(new AstPrinter().print(expr)).append('\n');
+            diagnostics.report(results[i]);
+        }
+        if(!results[0].toString().equals(results[1].toString()))
+            throw new IllegalStateException("the two parsers disagree");
+    }
+
+    //  random expressions over every operator, with the odd syntax error mixed in for recovery
+    private static String source(int count, Random random){
+        String[] operators = {"+", "-", "*", "/", "==", "!=", "<", "<=", ">", ">=", ","};
+        StringBuilder source = new StringBuilder();
+        for(int i = 0; i < count; i++){
+            int terms = 1 + random.nextInt(8);
+            for(int t = 0; t < terms; t++){
+                if(t > 0) source.append(' ').append(operators[random.nextInt(operators.length)]).append(' ');
+                if(random.nextInt(6) == 0) source.append('-');
+                switch (random.nextInt(5)){
+                    case 0 -> source.append('"').append(t).append('"');
+                    case 1 -> source.append("(").append(random.nextInt(100)).append(" + 1)");
+                    case 2 -> source.append(random.nextBoolean() ? "true" : "nil");
+                    default -> source.append(random.nextInt(1000));
+                }
+            }
+            if(random.nextInt(10) == 0) source.append(" ? 1 : 2");
+            if(random.nextInt(500) == 0) source.append(" +");
+            source.append(";\n");
+        }
+        return source.toString();
+    }
+
+    /**
+     * The recursive-descent parser as it was before Parser moved to the
+     * precedence table: one method per precedence level, varargs match().
+     * Only here as the baseline.
+     * */
+    private static class RecursiveDescent {
+        private static class ParseError extends RuntimeException{
+            ParseError(){
+                super(null, null, false, false);
+            }
+        }
+        private final List<Token> tokens;
+        private int current = 0;
+        private final Diagnostics diagnostics;
+
+        RecursiveDescent(List<Token> tokens, Diagnostics diagnostics){
+            this.tokens = tokens;
+            this.diagnostics = diagnostics;
+        }
+
+        List<Expr> parse(){
+            List<Expr> expressions = new ArrayList<>();
+            while(!isAtEnd()){
+                Expr expr = statement();
+                if(expr != null) expressions.add(expr);
+            }
+            return expressions;
+        }
+
+        private Expr statement(){
+            try{
+                Expr expr = expression();
+                if(!isAtEnd() && !match(SEMICOLON)){
+                    error(peek(), "Expect ';' after expression.");
+                    synchronize();
+                }
+                return expr;
+            } catch (ParseError error){
+                synchronize();
+                return null;
+            }
+        }
+
+        private Expr expression(){
+            Expr expr = comma();
+            if(match(QUERY)){
+                Expr expr2 = expression();
+                consume(COLON, "Expect : after expression");
+                Expr expr3 = expression();
+                expr = new Expr.Ternary(expr, expr2, expr3);
+            }
+            return expr;
+        }
+
+        private Expr comma(){
+            Expr expr = equality();
+            while(match(COMMA)) expr = new Expr.Binary(expr, previous(), equality());
+            return expr;
+        }
+
+        private Expr equality(){
+            Expr expr = comparison();
+            while(match(BANG_EQUAL, EQUAL_EQUAL)) expr = new Expr.Binary(expr, previous(), comparison());
+            return expr;
+        }
+
+        private Expr comparison(){
+            Expr expr = term();
+            while(match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) expr = new Expr.Binary(expr, previous(), term());
+            return expr;
+        }
+
+        private Expr term(){
+            Expr expr = factor();
+            while(match(MINUS, PLUS)) expr = new Expr.Binary(expr, previous(), factor());
+            return expr;
+        }
+
+        private Expr factor(){
+            Expr expr = unary();
+            while(match(SLASH, STAR)) expr = new Expr.Binary(expr, previous(), unary());
+            return expr;
+        }
+
+        private Expr unary(){
+            if(match(BANG, MINUS)) return new Expr.Unary(previous(), unary());
+            return primary();
+        }
+
+        private Expr primary(){
+            if(match(FALSE)) return new Expr.Literal(false);
+            if(match(TRUE)) return new Expr.Literal(true);
+            if(match(NIL)) return new Expr.Literal(null);
+            if(match(NUMBER, STRING)) return new Expr.Literal(previous().literal);
+            if(match(LEFT_PAREN)){
+                Expr expr = expression();
+                consume(RIGHT_PAREN, "Expect ')' after expression");
+                return new Expr.Grouping(expr);
+            }
+            throw error(peek(), "Expect expression.");
+        }
+
+        private Token consume(TokenType type, String message){
+            if(check(type)) return advance();
+            throw error(peek(), message);
+        }
+
+        private ParseError error(Token token, String message){
+            diagnostics.error(token, message);
+            return new ParseError();
+        }
+
+        private void synchronize(){
+            advance();
+            while(!isAtEnd()){
+                if(previous().type == SEMICOLON) return;
+                switch (peek().type){
+                    case CLASS: case FUN: case VAR: case FOR: case IF: case WHILE: case PRINT: case RETURN:
+                        return;
+                }
+                advance();
+            }
+        }
+
+        private Token previous(){
+            return tokens.get(current - 1);
+        }
+
+        private boolean match(TokenType... types){
+            for(TokenType type : types){
+                if(check(type)){
+                    advance();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private Token advance(){
+            if(!isAtEnd()) current++;
+            return previous();
+        }
+
+        private boolean check(TokenType type){
+            if(isAtEnd()) return false;
+            return peek().type == type;
+        }
+
+        private Token peek(){
+            return tokens.get(current);
+        }
+
+        private boolean isAtEnd(){
+            return peek().type == EOF;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.interpreter.lox;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Non-interactive streaming mode (jlox --stream). Every input line is handled
+ * like one REPL line, but the work is split into stages that run at the same time:
+ *
+ *   reader  -> groups lines into batches (the calling thread)
+ *   parsers -> scan + parse batches, several in parallel
+ *   eval    -> evaluates batches in input order on one interpreter
+ *   output  -> writes each batch's results to out and its errors to err
+ *
+ * The stages talk through bounded queues, so a slow stage makes the ones before
+ * it wait instead of buffering the whole input (backpressure). The reader queues
+ * each batch's parse future in input order, so output order matches input order
+ * even though batches are parsed out of order.
+ * */
+class Pipeline {
+    // a batch is cut at this many lines or characters, or when the input has nothing more ready
+    private static final int BATCH_LINES = 512;
+    private static final int BATCH_CHARS = 64 * 1024;
+
+    // one input line after scanning and parsing
+    private static class Parsed {
+        final String source;
+        final Diagnostics diagnostics = new Diagnostics();
+        List<Expr> expressions;
+
+        Parsed(String source){
+            this.source = source;
+        }
+    }
+
+    // what the output stage writes for one batch
+    private static class Output {
+        final StringBuilder out = new StringBuilder();
+        final StringBuilder err = new StringBuilder();
+    }
+
+    private static final CompletableFuture<List<Parsed>> END_OF_INPUT = CompletableFuture.completedFuture(null);
+    private static final Output END_OF_OUTPUT = new Output();
+
+    // set up by the caller; only the eval stage touches it
+    private final Interpreter interpreter;
+    private final int parsers;
+    // intern identical subexpressions within each batch (see ExprFactory.Interning)
+    private final boolean share;
+    // scan integral literals as Long (see Integers)
+    private final boolean integers;
+    // type feedback to apply and record around each line, or null
+    private final TypeProfile profile;
+    private final BlockingQueue<CompletableFuture<List<Parsed>>> parsed;
+    private final BlockingQueue<Output> evaluated = new ArrayBlockingQueue<>(16);
+
+    private volatile Throwable failure = null;
+    private boolean hadError = false;
+    private boolean hadRuntimeError = false;
+
+    Pipeline(Interpreter interpreter, boolean share, boolean integers, TypeProfile profile){
+        this(interpreter, Math.max(1, Runtime.getRuntime().availableProcessors() - 2), share, integers, profile);
+    }
+
+    Pipeline(Interpreter interpreter, int parsers, boolean share, boolean integers, TypeProfile profile){
+        this.interpreter = interpreter;
+        this.parsers = parsers;
+        this.share = share;
+        this.integers = integers;
+        this.profile = profile;
+        // enough batches in flight to keep every parser busy, but no more
+        this.parsed = new ArrayBlockingQueue<>(parsers * 2);
+    }
+
+    /**
+     * Runs every line of in through the pipeline and returns once all the output
+     * has been written.
+     * */
+    void run(BufferedReader in, PrintStream out, PrintStream err) throws IOException {
+        ExecutorService parsePool = Executors.newFixedThreadPool(parsers, runnable -> {
+            Thread thread = new Thread(runnable, "lox-parse");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Thread eval = new Thread(this::evaluateAll, "lox-eval");
+        Thread output = new Thread(() -> writeAll(out, err), "lox-output");
+        eval.start();
+        output.start();
+        try {
+            readAll(in, parsePool);
+        } finally {
+            put(parsed, END_OF_INPUT);
+            join(output);
+            join(eval);
+            parsePool.shutdown();
+        }
+        if(failure != null) throw new IllegalStateException("streaming evaluation failed", failure);
+    }
+
+    boolean hadError(){
+        return hadError;
+    }
+
+    boolean hadRuntimeError(){
+        return hadRuntimeError;
+    }
+
+    private void readAll(BufferedReader in, ExecutorService parsePool) throws IOException {
+        List<String> batch = new ArrayList<>();
+        int chars = 0;
+        String line;
+        while(failure == null && (line = in.readLine()) != null){
+            batch.add(line);
+            chars += line.length();
+            // don't hold back a half-full batch when the input is trickling in
+            if(batch.size() >= BATCH_LINES || chars >= BATCH_CHARS || !in.ready()){
+                submit(batch, parsePool);
+                batch = new ArrayList<>();
+                chars = 0;
+            }
+        }
+        if(!batch.isEmpty()) submit(batch, parsePool);
+    }
+
+    private void submit(List<String> lines, ExecutorService parsePool){
+        put(parsed, CompletableFuture.supplyAsync(() -> parse(lines), parsePool));
+    }
+
+    private List<Parsed> parse(List<String> lines){
+        List<Parsed> batch = new ArrayList<>(lines.size());
+        // one factory per batch: parse workers must not share one
+        ExprFactory factory = share ? new ExprFactory.Interning() : new ExprFactory();
+        for(String line : lines){
+            Parsed result = new Parsed(line);
+            Scanner scanner = new Scanner(line, result.diagnostics);
+            scanner.integers(integers);
+            List<Token> tokens = scanner.scanTokens();
+            List<Expr> expressions = new Parser(tokens, result.diagnostics, factory).parse();
+            // like the REPL, a line with a syntax error isn't evaluated at all
+            if(!result.diagnostics.hadError()) result.expressions = expressions;
+            batch.add(result);
+        }
+        return batch;
+    }
+
+    private void evaluateAll(){
+        try {
+            for(;;){
+                CompletableFuture<List<Parsed>> next = take(parsed);
+                if(next == END_OF_INPUT) break;
+                // after a failure keep draining so the reader never blocks on a full queue
+                if(failure != null) continue;
+                try {
+                    put(evaluated, evaluate(next.get()));
+                } catch (ExecutionException e){
+                    failure = e.getCause();
+                }
+            }
+        } catch (RuntimeException | Error e){
+            failure = e;
+        } catch (InterruptedException e){
+            failure = e;
+        } finally {
+            put(evaluated, END_OF_OUTPUT);
+        }
+    }
+
+    private Output evaluate(List<Parsed> batch){
+        Output output = new Output();
+        for(Parsed line : batch){
+            if(line.expressions == null){
+                hadError = true;
+            } else {
+                // done here rather than in the parse workers: the profile isn't thread-safe
+                if(profile != null) profile.apply(line.source, line.expressions);
+                try {
+                    RuntimeError error = interpreter.interpret(line.expressions, output.out);
+                    if(error != null) line.diagnostics.runtimeError(error);
+                } catch (LimitExceededError error){
+                    line.diagnostics.limitExceeded(error);
+                }
+                if(profile != null) profile.record(line.source, line.expressions);
+                if(line.diagnostics.hadRuntimeError()) hadRuntimeError = true;
+            }
+            line.diagnostics.report(output.err);
+        }
+        return output;
+    }
+
+    private void writeAll(PrintStream out, PrintStream err){
+        for(;;){
+            Output next = evaluated.poll();
+            if(next == null){
+                // nothing queued: push out what we have before waiting
+                out.flush();
+                err.flush();
+                next = take(evaluated);
+            }
+            if(next == END_OF_OUTPUT) break;
+            if(next.out.length() > 0) out.append(next.out);
+            if(next.err.length() > 0) err.append(next.err);
+        }
+        out.flush();
+        err.flush();
+    }
+
+    private static <T> void put(BlockingQueue<T> queue, T item){
+        try {
+            queue.put(item);
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static <T> T take(BlockingQueue<T> queue){
+        try {
+            return queue.take();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void join(Thread thread){
+        try {
+            thread.join();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,31 +1,93 @@
 package com.interpreter.lox;
 
-public class ReversePolish implements Expr.Visitor<String> {
-    @Override
-    public String visitBinary(Expr.Binary binary) {
-        return util(binary.left) + " " + util(binary.right) + " "  + binary.operator.lexeme;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+// Prints a tree in reverse Polish notation, e.g. 1 2 + 3 *.
+// Like AstPrinter it streams into an Appendable from an explicit stack instead of
+// building and concatenating a String per node, so huge trees print in one linear pass.
+public class ReversePolish implements Expr.Visitor<Void> {
+    // things still to print, top first: an Expr is visited, anything else is appended via toString()
+    private final Deque<Object> pending = new ArrayDeque<>();
+    private Appendable out;
+
+    String print(Expr expression) {
+        StringBuilder builder = new StringBuilder();
+        try {
+            print(expression, builder);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // a StringBuilder never throws
+        }
+        return builder.toString();
     }
 
-    private String util(Expr expression) {
-        return expression.accept(this);
+    void print(Expr expression, Appendable out) throws IOException {
+        this.out = out;
+        pending.clear();
+        pending.push(expression);
+        try {
+            while(!pending.isEmpty()) {
+                Object next = pending.pop();
+                if(next instanceof Expr) ((Expr) next).accept(this);
+                else out.append(next.toString());
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            this.out = null;
+            pending.clear();
+        }
     }
 
+    // operands come out before their operator, so everything is pushed last part first
     @Override
-    public String visitGrouping(Expr.Grouping grouping) {
-        return util(grouping.expression) + " " + "group";
+    public Void visitBinary(Expr.Binary binary) {
+        pending.push(binary.operator.lexeme);
+        pending.push(" ");
+        pending.push(binary.right);
+        pending.push(" ");
+        pending.push(binary.left);
+        return null;
     }
 
     @Override
-    public String visitTernary(Expr.Ternary ternary){ return util(ternary.expr1) + " " + util(ternary.expr2) + " " + util(ternary.expr3) + " " + "ternary";}
+    public Void visitGrouping(Expr.Grouping grouping) {
+        pending.push(" group");
+        pending.push(grouping.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitTernary(Expr.Ternary ternary){
+        pending.push(" ternary");
+        pending.push(ternary.expr3);
+        pending.push(" ");
+        pending.push(ternary.expr2);
+        pending.push(" ");
+        pending.push(ternary.expr1);
+        return null;
+    }
 
     @Override
-    public String visitUnary(Expr.Unary unary) {
-        return util(unary.right) + " " + unary.operator;
+    public Void visitUnary(Expr.Unary unary) {
+        // the whole token (Token.toString()), not just its lexeme
+        pending.push(unary.operator);
+        pending.push(" ");
+        pending.push(unary.right);
+        return null;
     }
 
     @Override
-    public String visitLiteral(Expr.Literal literal) {
-        return literal.value == null ? "nil" : literal.value.toString();
+    public Void visitLiteral(Expr.Literal literal) {
+        try {
+            out.append(literal.value == null ? "nil" : literal.value.toString());
+        } catch (IOException e) {
+            // visit methods can't throw IOException, so it's tunnelled out to print()
+            throw new UncheckedIOException(e);
+        }
+        return null;
     }
 
     public static void main(String[] args){
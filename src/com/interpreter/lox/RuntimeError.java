@@ -1,9 +1,14 @@
 package com.interpreter.lox;
 
+/**
+ * Runtime errors are ordinary control flow for bad input, not bugs in the
+ * interpreter, so we don't capture a stack trace (or suppressed exceptions).
+ * The token is all we need to tell the user where things went wrong.
+ * */
 public class RuntimeError extends RuntimeException {
     final Token token;
     public RuntimeError(Token token, String message) {
-        super(message);
+        super(message, null, false, false);
         this.token = token;
     }
 }
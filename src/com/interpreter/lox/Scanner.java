@@ -20,6 +20,18 @@ public class Scanner {
     private int start = 0;
     private int current = 0;
     private int line = 1;
+    // where scanning errors go
+    private final Diagnostics diagnostics;
+    // When set, comments, string bodies and runs of blanks are skipped with
+    // String.indexOf() and tight loops instead of one advance() per character.
+    // indexOf() on a String is a HotSpot intrinsic that compares many chars per
+    // instruction. Both modes produce exactly the same tokens.
+    private final boolean bulk;
+    // bulk mode: where the next '\n' at or after current is (source.length() if none),
+    // so counting newlines in strings looks at each char once instead of rescanning
+    private int nextNewline = -1;
+    // integer mode (see Integers): integral literals become Long instead of Double
+    private boolean integers = false;
 
     private static final Map<String, TokenType> keywords;
     // static block
@@ -43,8 +55,18 @@ public class Scanner {
         keywords.put("var",    TokenType.VAR);
         keywords.put("while",  TokenType.WHILE);
     }
-    Scanner(String source){
+    Scanner(String source, Diagnostics diagnostics){
+        this(source, diagnostics, true);
+    }
+
+    Scanner(String source, Diagnostics diagnostics, boolean bulk){
         this.source = source;
+        this.diagnostics = diagnostics;
+        this.bulk = bulk;
+    }
+
+    void integers(boolean on){
+        integers = on;
     }
     private boolean isAtEnd(){
         return current >= source.length();
@@ -81,14 +103,17 @@ public class Scanner {
             case '/' -> {
                 if(match('/')){
                     // case of comment. keep advancing until EOL
-                    while(!isAtEnd() && peek() != '\n') advance();
+                    if(bulk) current = indexOrEnd(source.indexOf('\n', current));
+                    else while(!isAtEnd() && peek() != '\n') advance();
                 }
                 else if(match('*')){
                     blockComment();
                 }
                 else addToken(TokenType.SLASH);
             }
-            case ' ', '\t' -> {}
+            case ' ', '\t' -> {
+                if(bulk) while(current < source.length() && isBlank(source.charAt(current))) current++;
+            }
             case '\n' -> line++;
             case '"' -> string();
             default -> {
@@ -97,7 +122,7 @@ public class Scanner {
                 } else if(isAlpha(c)){
                     identifier();
                 } else {
-                    Lox.error(line, "Unexpected character.");
+                    diagnostics.error(line, "Unexpected character.");
                 }
             }
         }
@@ -105,10 +130,11 @@ public class Scanner {
 
     private void blockComment() {
         // case of block comment, scan until "*/" is found
-        while(!isAtEnd() && !endOfBlockComment()) {
+        if(bulk) current = indexOrEnd(source.indexOf("*/", current));
+        else while(!isAtEnd() && !endOfBlockComment()) {
             advance();
         }
-        if(isAtEnd()) Lox.error(line, "Unterminated block comment");
+        if(isAtEnd()) diagnostics.error(line, "Unterminated block comment");
         else{
             advance(); // skip '*'
             advance(); // skip '/'
@@ -144,6 +170,13 @@ public class Scanner {
         if(peek() == '.' && isDigit(peekNext())) {
             advance(); // consume the '.'
             while(isDigit(peek())) advance();
+        } else if(integers && current - start <= 16) {
+            // 16 digits always fit in a long; beyond 2^53 it has to be a (rounded) double
+            long value = Long.parseLong(source, start, current, 10);
+            if(Integers.isExact(value)){
+                addToken(TokenType.NUMBER, Integers.valueOf(value));
+                return;
+            }
         }
         addToken(TokenType.NUMBER, Double.parseDouble(source.substring(start, current)));
 //        what if 923.sqrt()? is allowed? or only 923.34? this is not of concern during scanning
@@ -151,6 +184,15 @@ public class Scanner {
 
     }
 
+    // an indexOf() result, with "not found" meaning the end of the source
+    private int indexOrEnd(int index) {
+        return index < 0 ? source.length() : index;
+    }
+
+    private boolean isBlank(char c) {
+        return c == ' ' || c == '\t';
+    }
+
     private char peekNext() {
         if(current + 1 >= source.length()) return '\0';
         return source.charAt(current + 1);
@@ -161,12 +203,22 @@ public class Scanner {
     }
 
     private void string() {
-        while(!isAtEnd() && peek() != '"'){
+        if(bulk){
+            int end = indexOrEnd(source.indexOf('"', current));
+            // jump from newline to newline to keep line right, never looking past the next one
+            if(nextNewline < current) nextNewline = indexOrEnd(source.indexOf('\n', current));
+            while(nextNewline < end){
+                line++;
+                nextNewline = indexOrEnd(source.indexOf('\n', nextNewline + 1));
+            }
+            current = end;
+        }
+        else while(!isAtEnd() && peek() != '"'){
             if(peek() == '\n') line++;
             advance();
         }
         if(isAtEnd()){
-            Lox.error(line, "Unterminated String.");
+            diagnostics.error(line, "Unterminated String.");
             return;
         }
         advance(); // skip over '"'
@@ -0,0 +1,91 @@
+package com.interpreter.lox;
+
+import java.util.List;
+import java.util.Objects;
+
+//  What?
+//  Times the Scanner in bulk mode against the scalar (one char at a time) mode
+//  on a few generated inputs, and checks both give the same tokens and errors.
+//  Why?
+//  Bulk mode skips comments, strings and blanks with String.indexOf(). That
+//  only pays off if no input shape makes it slower than the plain loop, e.g.
+//  a long line full of short strings.
+//  It lives in this package because the Scanner's constructors are package-private.
+
+/***
+ * Usage: scanner_benchmark [repetitions]
+ * */
+
+public class ScannerBenchmark {
+    public static void main(String[] args){
+        int repetitions = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        run("long strings and comments", stringsAndComments(20_000), repetitions);
+        run("80k short strings, one line", shortStrings(80_000), repetitions);
+        run("320k short strings, one line", shortStrings(320_000), repetitions);
+        run("expressions, one per line", expressions(200_000), repetitions);
+        run("multi-line tokens and errors", "1 + \"a\nb\" /* x\ny */ @\n" + expressions(1_000) + "\"open\n", repetitions);
+    }
+
+    private static void run(String name, String source, int repetitions){
+        check(name, source);
+        System.out.printf("%-32s %,12d chars  scalar %7.1f ms  bulk %7.1f ms%n", name, source.length(),
+                best(source, false, repetitions), best(source, true, repetitions));
+    }
+
+    //  bulk mode must give exactly the scalar tokens (type, lexeme, literal, line) and diagnostics
+    private static void check(String name, String source){
+        Diagnostics scalarDiagnostics = new Diagnostics();
+        Diagnostics bulkDiagnostics = new Diagnostics();
+        List<Token> scalar = new Scanner(source, scalarDiagnostics, false).scanTokens();
+        List<Token> bulk = new Scanner(source, bulkDiagnostics, true).scanTokens();
+        if(scalar.size() != bulk.size())
+            throw new IllegalStateException(name + ": " + scalar.size() + " tokens in scalar mode, " + bulk.size() + " in bulk mode");
+        for(int i = 0; i < scalar.size(); i++){
+            Token expected = scalar.get(i);
+            Token actual = bulk.get(i);
+            if(expected.type != actual.type || !expected.lexeme.equals(actual.lexeme)
+                    || !Objects.equals(expected.literal, actual.literal) || expected.line != actual.line)
+                throw new IllegalStateException(name + ": token " + i + " is " + expected + " (line " + expected.line
+                        + ") in scalar mode, " + actual + " (line " + actual.line + ") in bulk mode");
+        }
+        StringBuilder expected = new StringBuilder();
+        StringBuilder actual = new StringBuilder();
+        scalarDiagnostics.report(expected);
+        bulkDiagnostics.report(actual);
+        if(!expected.toString().equals(actual.toString()))
+            throw new IllegalStateException(name + ": bulk and scalar mode report different errors");
+    }
+
+    //  fastest of the repetitions, in ms, so JIT warm-up and GC pauses don't count
+    private static double best(String source, boolean bulk, int repetitions){
+        long best = Long.MAX_VALUE;
+        for(int i = 0; i < repetitions; i++){
+            long start = System.nanoTime();
+            new Scanner(source, new Diagnostics(), bulk).scanTokens();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1e6;
+    }
+
+    private static String stringsAndComments(int lines){
+        StringBuilder source = new StringBuilder();
+        for(int i = 0; i < lines; i++){
+            source.append("\"").append("some text inside a string literal ".repeat(4)).append("\" + ")
+                  .append(i).append("; // a trailing comment that goes on for a while\n");
+            if(i % 10 == 0) source.append("/* a block comment\n   over two lines */\n");
+        }
+        return source.toString();
+    }
+
+    private static String shortStrings(int count){
+        StringBuilder source = new StringBuilder();
+        for(int i = 0; i < count; i++) source.append("\"ab\" ");
+        return source.append('\n').toString();
+    }
+
+    private static String expressions(int lines){
+        StringBuilder source = new StringBuilder();
+        for(int i = 0; i < lines; i++) source.append(i).append(" + (").append(i % 7).append(" * 3) >= 12.5;\n");
+        return source.toString();
+    }
+}
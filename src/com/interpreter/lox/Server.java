@@ -0,0 +1,319 @@
+package com.interpreter.lox;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A long-lived evaluation daemon, so callers pay JVM start-up and warm-up once
+ * instead of once per file. Clients connect to a Unix domain socket and send
+ * Lox source; each request is scanned, parsed and evaluated like one REPL line.
+ *
+ * Framing, all integers big-endian:
+ *   request   int length, then length bytes of UTF-8 source
+ *   response  int length, then (length bytes of)
+ *               byte status   OK, SYNTAX_ERROR, RUNTIME_ERROR, LIMIT_EXCEEDED or INTERNAL_ERROR
+ *               int  outLength
+ *               outLength bytes of UTF-8 results, one value per line
+ *               the rest: UTF-8 diagnostics, formatted like on System.err
+ *
+ * A failed request never takes its event loop down with it. The loops run on
+ * threads with a LOOP_STACK_SIZE stack, so big inputs (200k nested parentheses,
+ * a sum of a million terms) are fine. Input nested too deeply even for that
+ * (millions of parentheses) gets LIMIT_EXCEEDED with "Expression is nested too
+ * deeply.", whatever limits the server runs with. Any other unexpected exception gets INTERNAL_ERROR. Either way the
+ * connection stays open for the next request.
+ *
+ * Clients may pipeline: send any number of requests without waiting. Responses
+ * come back in request order on the same connection.
+ *
+ * One thread accepts connections and hands them round-robin to a few event
+ * loops. Each loop is a Selector with its own Interpreter and runs requests
+ * from its connections one after another.
+ * */
+public class Server {
+    static final byte OK = 0;
+    static final byte SYNTAX_ERROR = 1;
+    static final byte RUNTIME_ERROR = 2;
+    // the request went over the server's EvaluationLimits
+    static final byte LIMIT_EXCEEDED = 3;
+    // a bug on our side, not in the request; the diagnostics say what was thrown
+    static final byte INTERNAL_ERROR = 4;
+
+    // a bigger frame means a broken or hostile client, so we drop the connection
+    static final int MAX_FRAME = 16 * 1024 * 1024;
+    // stop reading from a client while this much of its output is still unsent
+    private static final int MAX_PENDING_OUTPUT = 1024 * 1024;
+    // Parser and Interpreter recurse once per nesting level, and the default
+    // thread stack overflows at a few thousand. This is only reserved address
+    // space until a deep request actually touches it.
+    private static final long LOOP_STACK_SIZE = 256L * 1024 * 1024;
+
+    private final Path socket;
+    private final EventLoop[] loops;
+    private final EvaluationLimits limits;
+    // scan integral literals as Long (see Integers)
+    private final boolean integers;
+
+    Server(Path socket, int loops, EvaluationLimits limits, boolean integers){
+        this.socket = socket;
+        this.loops = new EventLoop[loops];
+        this.limits = limits;
+        this.integers = integers;
+    }
+
+    public static void main(String[] args) throws IOException {
+        EvaluationLimits limits = EvaluationLimits.NONE;
+        boolean integers = false;
+        List<String> positional = new ArrayList<>();
+        for(String arg : args){
+            EvaluationLimits withLimit = limits.withFlag(arg);
+            if(withLimit != null) limits = withLimit;
+            else if(arg.equals("--integers")) integers = true;
+            else if(arg.startsWith("--")) usage();
+            else positional.add(arg);
+        }
+        if(positional.size() < 1 || positional.size() > 2) usage();
+        int loops = positional.size() == 2 ? Integer.parseInt(positional.get(1)) : Runtime.getRuntime().availableProcessors();
+        new Server(Paths.get(positional.get(0)), Math.max(1, loops), limits, integers).serve();
+    }
+
+    private static void usage(){
+        System.out.println("Usage: jlox-server [--integers] [--max-steps=N] [--timeout-ms=N] [--max-string=N] <socket path> [event loops]");
+        System.exit(64);
+    }
+
+    void serve() throws IOException {
+        // a socket file left behind by an earlier run would make bind() fail,
+        // but never delete something that isn't a socket
+        if(Files.isRegularFile(socket) || Files.isDirectory(socket))
+            throw new IOException(socket + " exists and is not a socket");
+        Files.deleteIfExists(socket);
+
+        try(ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)){
+            server.bind(UnixDomainSocketAddress.of(socket));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(socket);
+                } catch (IOException ignored){
+                    // nothing left to do on the way out
+                }
+            }));
+            for(int i = 0; i < loops.length; i++){
+                loops[i] = new EventLoop(limits, integers);
+                Thread thread = new Thread(null, loops[i], "lox-server-" + i, LOOP_STACK_SIZE);
+                thread.setDaemon(true);
+                thread.start();
+            }
+            System.err.println("Serving on " + socket);
+            for(int next = 0; ; next = (next + 1) % loops.length){
+                SocketChannel client = server.accept();
+                loops[next].add(client);
+            }
+        }
+    }
+
+    private static class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> incoming = new ConcurrentLinkedQueue<>();
+        private final Interpreter interpreter = new Interpreter();
+        // reused for every request on this loop
+        private final StringBuilder out = new StringBuilder();
+        private final StringBuilder err = new StringBuilder();
+        private final boolean integers;
+
+        EventLoop(EvaluationLimits limits, boolean integers) throws IOException {
+            selector = Selector.open();
+            interpreter.limits(limits);
+            this.integers = integers;
+        }
+
+        // called from the accepting thread
+        void add(SocketChannel client){
+            incoming.add(client);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run(){
+            for(;;){
+                try {
+                    selector.select();
+                    register();
+                    for(SelectionKey key : selector.selectedKeys()) handle(key);
+                    selector.selectedKeys().clear();
+                } catch (IOException e){
+                    // the selector itself is broken, nothing sensible to do but stop
+                    System.err.println("Event loop stopped: " + e.getMessage());
+                    return;
+                }
+            }
+        }
+
+        private void register() throws IOException {
+            SocketChannel client;
+            while((client = incoming.poll()) != null){
+                client.configureBlocking(false);
+                try {
+                    client.register(selector, SelectionKey.OP_READ, new Connection());
+                } catch (ClosedChannelException e){
+                    // the client went away before we got to it
+                }
+            }
+        }
+
+        private void handle(SelectionKey key){
+            SocketChannel channel = (SocketChannel) key.channel();
+            Connection connection = (Connection) key.attachment();
+            try {
+                if(key.isValid() && key.isReadable()){
+                    if(channel.read(connection.input) < 0){
+                        close(key);
+                        return;
+                    }
+                    processFrames(connection);
+                }
+                if(key.isValid() && connection.output.position() > 0) flushOutput(channel, connection);
+                if(key.isValid()){
+                    int interest = 0;
+                    if(connection.output.position() < MAX_PENDING_OUTPUT) interest |= SelectionKey.OP_READ;
+                    if(connection.output.position() > 0) interest |= SelectionKey.OP_WRITE;
+                    key.interestOps(interest);
+                }
+            } catch (IOException | ProtocolException e){
+                close(key);
+            } catch (RuntimeException e){
+                // evaluate() already answers failed requests, so this is our own bug: drop the client, keep the loop
+                System.err.println("Dropping a connection: " + e);
+                close(key);
+            }
+        }
+
+        // runs every complete request in the input buffer, in order
+        private void processFrames(Connection connection) throws ProtocolException {
+            ByteBuffer input = connection.input;
+            input.flip();
+            int needed = 0;
+            while(input.remaining() >= Integer.BYTES){
+                int length = input.getInt(input.position());
+                if(length < 0 || length > MAX_FRAME) throw new ProtocolException();
+                if(input.remaining() < Integer.BYTES + length){
+                    needed = Integer.BYTES + length;
+                    break;
+                }
+                input.position(input.position() + Integer.BYTES);
+                String source = StandardCharsets.UTF_8.decode(input.slice(input.position(), length)).toString();
+                input.position(input.position() + length);
+                evaluate(source, connection);
+            }
+            input.compact();
+            // make room for the whole of a frame that's only partly here
+            if(needed > input.capacity()) connection.input = Connection.grow(input, needed);
+        }
+
+        private void evaluate(String source, Connection connection){
+            out.setLength(0);
+            err.setLength(0);
+            Diagnostics diagnostics = new Diagnostics();
+            byte status;
+            RuntimeException failure = null;
+            try {
+                status = execute(source, diagnostics);
+            } catch (StackOverflowError error){
+                // too deep even for LOOP_STACK_SIZE; the stack has unwound, so the loop can carry on
+                diagnostics.limitExceeded(new LimitExceededError(null, "Expression is nested too deeply."));
+                status = LIMIT_EXCEEDED;
+            } catch (RuntimeException error){
+                failure = error;
+                status = INTERNAL_ERROR;
+            }
+            diagnostics.report(err);
+            if(failure != null) err.append("Internal error: ").append(failure).append(System.lineSeparator());
+
+            byte[] outBytes = out.toString().getBytes(StandardCharsets.UTF_8);
+            byte[] errBytes = err.toString().getBytes(StandardCharsets.UTF_8);
+            int length = 1 + Integer.BYTES + outBytes.length + errBytes.length;
+            ByteBuffer output = connection.reserve(Integer.BYTES + length);
+            output.putInt(length).put(status).putInt(outBytes.length).put(outBytes).put(errBytes);
+        }
+
+        // scans, parses and evaluates one request into out, returning its status
+        private byte execute(String source, Diagnostics diagnostics){
+            Scanner scanner = new Scanner(source, diagnostics);
+            scanner.integers(integers);
+            List<Token> tokens = scanner.scanTokens();
+            List<Expr> expressions = new Parser(tokens, diagnostics).parse();
+            byte status = OK;
+            if(diagnostics.hadError()){
+                status = SYNTAX_ERROR;
+            } else {
+                try {
+                    RuntimeError error = interpreter.interpret(expressions, out);
+                    if(error != null){
+                        diagnostics.runtimeError(error);
+                        status = RUNTIME_ERROR;
+                    }
+                } catch (LimitExceededError error){
+                    diagnostics.limitExceeded(error);
+                    status = LIMIT_EXCEEDED;
+                }
+            }
+            return status;
+        }
+
+        private void flushOutput(SocketChannel channel, Connection connection) throws IOException {
+            ByteBuffer output = connection.output;
+            output.flip();
+            channel.write(output);
+            output.compact();
+        }
+
+        private void close(SelectionKey key){
+            key.cancel();
+            try {
+                key.channel().close();
+            } catch (IOException ignored){
+                // already gone
+            }
+        }
+    }
+
+    // per-client buffers, both kept in "write" mode between events
+    private static class Connection {
+        ByteBuffer input = ByteBuffer.allocate(4096);
+        ByteBuffer output = ByteBuffer.allocate(4096);
+
+        ByteBuffer reserve(int bytes){
+            if(output.remaining() < bytes) output = grow(output, Math.max(output.capacity() * 2, output.position() + bytes));
+            return output;
+        }
+
+        private static ByteBuffer grow(ByteBuffer buffer, int capacity){
+            ByteBuffer bigger = ByteBuffer.allocate(capacity);
+            buffer.flip();
+            bigger.put(buffer);
+            return bigger;
+        }
+    }
+
+    // a client broke the framing rules
+    private static class ProtocolException extends Exception {
+        ProtocolException(){
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.interpreter.lox;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Type feedback (Expr.feedback) that outlives the process. After a run we
+ * record the feedback of every node, keyed by a hash of the source text and
+ * the node's position in the tree. The next process loads the file and puts
+ * the feedback back on the freshly parsed nodes, so they take the
+ * interpreter's fast path from their first evaluation.
+ *
+ * Next to each node's feedback we keep its kind and operator. If a source's
+ * tree doesn't match that shape node for node, the entry is stale and we skip
+ * it. A file with a bad header, checksum, count or TokenType layout is ignored.
+ * The interpreter always checks operand types before its fast path, so a wrong
+ * profile could only make things slower, never wrong.
+ *
+ * File layout (DataOutputStream):
+ *   int magic, int version, long token layout hash, int sources,
+ *   per source: long source hash, int nodes, per node: short shape, byte feedback
+ *   long CRC32 of everything before it
+ * */
+class TypeProfile {
+    private static final int MAGIC = 0x4C4F5850; // "LOXP"
+    private static final int VERSION = 1;
+    // stop taking new sources after this many, so a long stream of distinct lines can't grow it forever
+    private static final int MAX_SOURCES = 1 << 16;
+
+    private static class Entry {
+        final short[] shape;
+        final byte[] feedback;
+
+        Entry(short[] shape, byte[] feedback){
+            this.shape = shape;
+            this.feedback = feedback;
+        }
+    }
+
+    private final Map<Long, Entry> sources = new HashMap<>();
+
+    /**
+     * Reads a profile written by save(). A missing, corrupt or incompatible file
+     * gives an empty profile: starting cold is always fine.
+     * */
+    static TypeProfile load(Path path){
+        TypeProfile profile = new TypeProfile();
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(path);
+        } catch (NoSuchFileException e){
+            return profile;
+        } catch (IOException e){
+            System.err.println("Ignoring type profile " + path + ": " + e.getMessage());
+            return profile;
+        }
+        if(bytes.length < Long.BYTES || checksum(bytes, bytes.length - Long.BYTES) != ByteBuffer.wrap(bytes).getLong(bytes.length - Long.BYTES)){
+            System.err.println("Ignoring type profile " + path + ": bad checksum");
+            return profile;
+        }
+        try(DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - Long.BYTES))){
+            if(in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != tokenLayout()){
+                System.err.println("Ignoring type profile " + path + ": written by a different version");
+                return profile;
+            }
+            // a count is only believed if the bytes left could hold it, so a bad one can't make us allocate
+            int count = in.readInt();
+            if(count < 0 || count > in.available() / (Long.BYTES + Integer.BYTES)) throw new IOException("bad source count " + count);
+            for(int i = 0; i < count; i++){
+                long hash = in.readLong();
+                int nodes = in.readInt();
+                if(nodes < 0 || nodes > in.available() / (Short.BYTES + Byte.BYTES)) throw new IOException("bad node count " + nodes);
+                short[] shape = new short[nodes];
+                byte[] feedback = new byte[nodes];
+                for(int n = 0; n < nodes; n++){
+                    shape[n] = in.readShort();
+                    feedback[n] = in.readByte();
+                }
+                profile.sources.put(hash, new Entry(shape, feedback));
+            }
+        } catch (IOException | RuntimeException e){
+            System.err.println("Ignoring type profile " + path + ": " + e);
+            return new TypeProfile();
+        }
+        return profile;
+    }
+
+    // writes to a temporary file first, so a crash halfway never leaves a torn profile behind
+    // synchronized like apply() and record(): the shutdown hook may save while the main thread runs
+    synchronized void save(Path path) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(DataOutputStream out = new DataOutputStream(bytes)){
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(tokenLayout());
+            out.writeInt(sources.size());
+            for(Map.Entry<Long, Entry> source : sources.entrySet()){
+                Entry entry = source.getValue();
+                out.writeLong(source.getKey());
+                out.writeInt(entry.shape.length);
+                for(int n = 0; n < entry.shape.length; n++){
+                    out.writeShort(entry.shape[n]);
+                    out.writeByte(entry.feedback[n]);
+                }
+            }
+            out.writeLong(checksum(bytes.toByteArray(), bytes.size()));
+        }
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(temp, bytes.toByteArray());
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // puts recorded feedback back on the nodes parsed from source, if the shapes still match
+    synchronized void apply(String source, List<Expr> expressions){
+        Entry entry = sources.get(hash(source));
+        if(entry == null) return;
+        List<Expr> nodes = nodes(expressions);
+        if(nodes.size() != entry.shape.length) return;
+        for(int n = 0; n < nodes.size(); n++){
+            if(shape(nodes.get(n)) != entry.shape[n]) return;
+        }
+        for(int n = 0; n < nodes.size(); n++) nodes.get(n).feedback |= entry.feedback[n] & 0xFF;
+    }
+
+    // remembers the feedback the nodes parsed from source have collected so far
+    synchronized void record(String source, List<Expr> expressions){
+        long key = hash(source);
+        if(sources.size() >= MAX_SOURCES && !sources.containsKey(key)) return;
+        List<Expr> nodes = nodes(expressions);
+        short[] shape = new short[nodes.size()];
+        byte[] feedback = new byte[nodes.size()];
+        for(int n = 0; n < nodes.size(); n++){
+            shape[n] = shape(nodes.get(n));
+            feedback[n] = (byte) nodes.get(n).feedback;
+        }
+        sources.put(key, new Entry(shape, feedback));
+    }
+
+    // every distinct node in pre-order; a node shared by hash-consing is listed once
+    private static List<Expr> nodes(List<Expr> expressions){
+        List<Expr> nodes = new ArrayList<>();
+        Set<Expr> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Expr> stack = new ArrayDeque<>();
+        for(int i = expressions.size() - 1; i >= 0; i--) stack.push(expressions.get(i));
+        while(!stack.isEmpty()){
+            Expr expr = stack.pop();
+            if(!seen.add(expr)) continue;
+            nodes.add(expr);
+            // push right to left so the left child comes out first
+            if(expr instanceof Expr.Binary){
+                stack.push(((Expr.Binary) expr).right);
+                stack.push(((Expr.Binary) expr).left);
+            } else if(expr instanceof Expr.Unary){
+                stack.push(((Expr.Unary) expr).right);
+            } else if(expr instanceof Expr.Grouping){
+                stack.push(((Expr.Grouping) expr).expression);
+            } else if(expr instanceof Expr.Ternary){
+                stack.push(((Expr.Ternary) expr).expr3);
+                stack.push(((Expr.Ternary) expr).expr2);
+                stack.push(((Expr.Ternary) expr).expr1);
+            }
+        }
+        return nodes;
+    }
+
+    // node kind in the high byte, operator in the low byte
+    private static short shape(Expr expr){
+        if(expr instanceof Expr.Binary) return (short) (1 << 8 | ((Expr.Binary) expr).operator.type.ordinal());
+        if(expr instanceof Expr.Unary) return (short) (2 << 8 | ((Expr.Unary) expr).operator.type.ordinal());
+        if(expr instanceof Expr.Grouping) return 3 << 8;
+        if(expr instanceof Expr.Ternary) return 4 << 8;
+        return 5 << 8;
+    }
+
+    // 64-bit FNV-1a over the chars: stable across runs, unlike String.hashCode() it rarely collides
+    private static long hash(String source){
+        long hash = 0xcbf29ce484222325L;
+        for(int i = 0; i < source.length(); i++){
+            hash ^= source.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    // shapes store TokenType ordinals, so a reordered enum must invalidate old files
+    private static long tokenLayout(){
+        StringBuilder names = new StringBuilder();
+        for(TokenType type : TokenType.values()) names.append(type.name()).append(',');
+        return hash(names.toString());
+    }
+
+    private static long checksum(byte[] bytes, int length){
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return crc.getValue();
+    }
+}
@@ -60,6 +60,9 @@ public class GenerateAst {
         //  https://craftinginterpreters.com/representing-code.html#visitors-for-expressions
         defineVisitor(writer, baseName, types);
 
+        //  fields every node has, on top of the ones from its production rule
+        defineCommonFields(writer);
+
         //  for each type in types, create a subclass
         //  The AST classes.
         for(String type : types){
@@ -85,6 +88,16 @@ public class GenerateAst {
         writer.println("    }");
     }
 
+    private static void defineCommonFields(PrintWriter writer) {
+        writer.println("    // set by ExprFactory.Interning when this node is handed out more than once");
+        writer.println("    boolean shared = false;");
+        writer.println("    // rough evaluation cost: nodes in the subtree, filled in by ExprFactory");
+        writer.println("    int cost = 1;");
+        writer.println("    // operand types this node has seen (Interpreter.NUMBER etc.), left operand in the low bits");
+        writer.println("    int feedback = 0;");
+        writer.println();
+    }
+
     private static void defineType(PrintWriter writer, String baseName, String subClassName, String fieldList) {
         writer.println("    static class " + subClassName + " extends " + baseName + " {");
         //  constructor
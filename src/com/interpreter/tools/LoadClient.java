@@ -0,0 +1,107 @@
+package com.interpreter.tools;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+//  What?
+//  A load generator for the Lox evaluation server (com.interpreter.lox.Server).
+//  It opens a few connections, keeps a number of requests in flight on each one
+//  (pipelining) and reports requests per second and latency percentiles.
+//  Why?
+//  To see what the server can take before and after a change, without writing
+//  a client every time.
+
+/***
+ * Usage: load_client <socket path> [connections] [requests per connection] [pipeline depth] [expression]
+ *  e.g.  load_client /tmp/lox.sock 4 100000 16 "1 + 2 * 3"
+ * */
+
+public class LoadClient {
+    public static void main(String[] args) throws Exception {
+        if(args.length < 1 || args.length > 5) {
+            System.err.println("Usage: load_client <socket path> [connections] [requests per connection] [pipeline depth] [expression]");
+            System.exit(64);
+        }
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(args[0]);
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+        int depth = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+        String expression = args.length > 4 ? args[4] : "1 + 2 * 3 - 4 / 5";
+
+        //  every request is the same frame: int length + UTF-8 source
+        byte[] source = expression.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + source.length).putInt(source.length).put(source).flip();
+
+        long[][] latencies = new long[connections][];
+        int[] failures = new int[connections];
+        Thread[] threads = new Thread[connections];
+        long start = System.nanoTime();
+        for(int i = 0; i < connections; i++) {
+            int connection = i;
+            threads[i] = new Thread(() -> {
+                try {
+                    latencies[connection] = run(address, frame.duplicate(), requests, depth, failures, connection);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            threads[i].start();
+        }
+        for(Thread thread : threads) thread.join();
+        long elapsed = System.nanoTime() - start;
+
+        long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        int failed = Arrays.stream(failures).sum();
+        System.out.printf("%d requests over %d connections (pipeline depth %d) in %.2f s%n",
+                all.length, connections, depth, elapsed / 1e9);
+        System.out.printf("throughput: %.0f requests/s%n", all.length / (elapsed / 1e9));
+        System.out.printf("latency: p50 %.1f us, p99 %.1f us, max %.1f us%n",
+                percentile(all, 0.50) / 1e3, percentile(all, 0.99) / 1e3, all[all.length - 1] / 1e3);
+        if(failed > 0) System.out.println("responses with an error status: " + failed);
+    }
+
+    //  sends `requests` copies of frame with at most `depth` unanswered, returns each one's latency in ns
+    private static long[] run(UnixDomainSocketAddress address, ByteBuffer frame, int requests, int depth,
+                              int[] failures, int connection) throws IOException {
+        long[] sent = new long[requests];
+        long[] latencies = new long[requests];
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+        ByteBuffer body = ByteBuffer.allocate(1024);
+        try(SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(address);
+            int next = 0;
+            for(int done = 0; done < requests; done++) {
+                while(next < requests && next - done < depth) {
+                    sent[next++] = System.nanoTime();
+                    frame.rewind();
+                    while(frame.hasRemaining()) channel.write(frame);
+                }
+                header.clear();
+                readFully(channel, header);
+                int length = header.flip().getInt();
+                if(body.capacity() < length) body = ByteBuffer.allocate(length);
+                body.clear().limit(length);
+                readFully(channel, body);
+                latencies[done] = System.nanoTime() - sent[done];
+                //  first byte of the body is the status, 0 means OK
+                if(body.get(0) != 0) failures[connection]++;
+            }
+        }
+        return latencies;
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer) < 0) throw new IOException("server closed the connection");
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+}